@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.cli;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.SystemReader;
+
+/**
+ * The {@link CliSystemReader} skips the system wide GIT configuration. JGit
+ * locates the system configuration by running the git executable, which is the
+ * most expensive part of the start of the command line tool. The version
+ * information doesn't depend on the system configuration.
+ */
+class CliSystemReader extends SystemReader {
+
+	private final SystemReader delegate;
+
+	/**
+	 * Constructs an instance of {@link CliSystemReader}.
+	 *
+	 * @param delegate
+	 */
+	CliSystemReader(SystemReader delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public String getHostname() {
+		return delegate.getHostname();
+	}
+
+	@Override
+	public String getenv(String variable) {
+		return delegate.getenv(variable);
+	}
+
+	@Override
+	public String getProperty(String key) {
+		return delegate.getProperty(key);
+	}
+
+	@Override
+	public FileBasedConfig openUserConfig(Config parent, FS fs) {
+		return delegate.openUserConfig(parent, fs);
+	}
+
+	@Override
+	public FileBasedConfig openJGitConfig(Config parent, FS fs) {
+		return delegate.openJGitConfig(parent, fs);
+	}
+
+	/**
+	 * Returns an empty configuration, like JGit does if the environment variable
+	 * GIT_CONFIG_NOSYSTEM is set.
+	 */
+	@Override
+	public FileBasedConfig openSystemConfig(Config parent, FS fs) {
+		return new FileBasedConfig(parent, null, fs) {
+
+			@Override
+			public void load() {
+			}
+
+			@Override
+			public boolean isOutdated() {
+				return false;
+			}
+		};
+	}
+
+	@Override
+	public long getCurrentTime() {
+		return delegate.getCurrentTime();
+	}
+
+	@Override
+	public int getTimezone(long when) {
+		return delegate.getTimezone(when);
+	}
+}
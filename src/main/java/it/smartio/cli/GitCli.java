@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.cli;
+
+import org.eclipse.jgit.util.SystemReader;
+
+import it.smartio.version.BuildNumber;
+import it.smartio.version.GitVersion;
+import it.smartio.version.Version;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link GitCli} prints the <code>git.*</code> properties for shell
+ * scripts and CI pipelines.
+ *
+ * <pre>
+ * git-version [--format properties|json|env] [--pattern 00.00.0] [--nightly] [directory]
+ * </pre>
+ */
+public class GitCli {
+
+	private static final String USAGE = "Usage: git-version [--format properties|json|env] [--pattern 00.00.0] [--nightly] [directory]";
+
+	/**
+	 * The supported output formats.
+	 */
+	private enum Format {
+		PROPERTIES, JSON, ENV
+	}
+
+	/**
+	 * Constructs an instance of {@link GitCli}.
+	 */
+	private GitCli() {
+	}
+
+	/**
+	 * Runs the command line tool.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		SystemReader.setInstance(new CliSystemReader(SystemReader.getInstance()));
+		System.exit(GitCli.run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the command line tool and returns the exit code.
+	 *
+	 * @param args
+	 * @param out
+	 * @param err
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		Format format = Format.PROPERTIES;
+		String pattern = "00.00.0";
+		boolean nightly = false;
+		File location = new File(".");
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "-f":
+				case "--format":
+					if (++i == args.length) {
+						err.println(GitCli.USAGE);
+						return 2;
+					}
+					switch (args[i]) {
+						case "properties":
+							format = Format.PROPERTIES;
+							break;
+						case "json":
+							format = Format.JSON;
+							break;
+						case "env":
+							format = Format.ENV;
+							break;
+						default:
+							err.println("Unknown format '" + args[i] + "'");
+							err.println(GitCli.USAGE);
+							return 2;
+					}
+					break;
+
+				case "-p":
+				case "--pattern":
+					if (++i == args.length) {
+						err.println(GitCli.USAGE);
+						return 2;
+					}
+					pattern = args[i];
+					break;
+
+				case "-n":
+				case "--nightly":
+					nightly = true;
+					break;
+
+				case "-h":
+				case "--help":
+					out.println(GitCli.USAGE);
+					return 0;
+
+				default:
+					if (args[i].startsWith("-")) {
+						err.println("Unknown option '" + args[i] + "'");
+						err.println(GitCli.USAGE);
+						return 2;
+					}
+					location = new File(args[i]);
+					break;
+			}
+		}
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		try (GitVersion git = GitVersion.open(location)) {
+			Version version = git.getVersion();
+			if (version == null) {
+				err.println("No GIT version found in '" + location + "'");
+				return 1;
+			}
+
+			if (nightly) {
+				version = Version.of(version.getMajor(), version.getMinor(), version.getPatch() + 1);
+			}
+
+			properties.put("git.commit.date", git.getISOTime());
+			properties.put("git.commit.hash", git.getHash());
+			properties.put("git.commit.branch", git.getBranchName());
+			properties.put("git.buildnumber", "" + BuildNumber.get());
+			properties.put("git.version", version.toString(pattern));
+			properties.put("git.release", version.toString("00.00"));
+		} catch (Exception e) {
+			err.println("Couldn't calculate GIT version: " + e.getMessage());
+			return 1;
+		}
+
+		StringBuilder buffer = new StringBuilder();
+		switch (format) {
+			case JSON:
+				GitCli.writeJson(properties, buffer);
+				break;
+			case ENV:
+				GitCli.writeEnv(properties, buffer);
+				break;
+			default:
+				GitCli.writeProperties(properties, buffer);
+				break;
+		}
+		out.print(buffer);
+		out.flush();
+		return 0;
+	}
+
+	/**
+	 * Writes the properties as <code>key=value</code> lines.
+	 *
+	 * @param properties
+	 * @param buffer
+	 */
+	private static void writeProperties(Map<String, String> properties, StringBuilder buffer) {
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			buffer.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+	}
+
+	/**
+	 * Writes the properties as shell exports, e.g.
+	 * <code>export GIT_COMMIT_HASH='...'</code>.
+	 *
+	 * @param properties
+	 * @param buffer
+	 */
+	private static void writeEnv(Map<String, String> properties, StringBuilder buffer) {
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			buffer.append("export ");
+			buffer.append(entry.getKey().replace('.', '_').toUpperCase());
+			buffer.append("='").append(entry.getValue().replace("'", "'\\''")).append("'\n");
+		}
+	}
+
+	/**
+	 * Writes the properties as a flat JSON object.
+	 *
+	 * @param properties
+	 * @param buffer
+	 */
+	private static void writeJson(Map<String, String> properties, StringBuilder buffer) {
+		buffer.append('{');
+		String separator = "\n";
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			buffer.append(separator).append("  ");
+			GitCli.appendJson(entry.getKey(), buffer);
+			buffer.append(": ");
+			GitCli.appendJson(entry.getValue(), buffer);
+			separator = ",\n";
+		}
+		buffer.append("\n}\n");
+	}
+
+	/**
+	 * Appends the text as quoted JSON string.
+	 *
+	 * @param text
+	 * @param buffer
+	 */
+	private static void appendJson(String text, StringBuilder buffer) {
+		buffer.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '"':
+					buffer.append("\\\"");
+					break;
+				case '\\':
+					buffer.append("\\\\");
+					break;
+				case '\n':
+					buffer.append("\\n");
+					break;
+				case '\r':
+					buffer.append("\\r");
+					break;
+				case '\t':
+					buffer.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						buffer.append(String.format("\\u%04x", (int) c));
+					} else {
+						buffer.append(c);
+					}
+					break;
+			}
+		}
+		buffer.append('"');
+	}
+}
@@ -41,14 +41,13 @@ public class GitPlugin implements Plugin<Project> {
 	 */
 	private void buildGitVersion(Project project, GitPluginConfig config) {
 		File location = project.getRootDir();
-		try {
-			GitVersion git = GitVersion.getLatestVersion(location);
-			if (git == null) {
+		try (GitVersion git = GitVersion.open(location)) {
+			Version version = git.getVersion();
+			if (version == null) {
 				project.getLogger().error("No GIT version found in '{}'", location);
 				return;
 			}
 
-			Version version = git.getVersion();
 			if (config.isNightly()) {
 				version = Version.of(version.getMajor(), version.getMinor(), version.getPatch() + 1);
 			}
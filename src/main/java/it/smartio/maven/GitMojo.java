@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.maven;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.SessionData;
+
+import it.smartio.version.BuildNumber;
+import it.smartio.version.GitVersion;
+import it.smartio.version.Version;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link GitMojo} provides the <code>git.*</code> properties to a Maven
+ * build. The GIT version is resolved once per reactor session and shared by
+ * all modules, also on parallel builds.
+ */
+@Mojo(name = "version", defaultPhase = LifecyclePhase.INITIALIZE, threadSafe = true)
+public class GitMojo extends AbstractMojo {
+
+	private static final String SESSION_KEY = GitMojo.class.getName();
+
+	@Parameter(defaultValue = "${session}", readonly = true, required = true)
+	private MavenSession session;
+
+	@Parameter(defaultValue = "${project}", readonly = true, required = true)
+	private MavenProject project;
+
+	@Parameter(property = "git.pattern", defaultValue = "00.00.0")
+	private String pattern;
+
+	@Parameter(property = "git.nightly", defaultValue = "false")
+	private boolean nightly;
+
+	/**
+	 * Sets the <code>git.*</code> properties on the current project.
+	 */
+	@Override
+	public void execute() {
+		File location = new File(session.getExecutionRootDirectory());
+		GitInfo info = getSessionCache().computeIfAbsent(location, this::resolve);
+		if (info.version == null) {
+			getLog().error("No GIT version found in '" + location + "'");
+			return;
+		}
+
+		Version version = info.version;
+		if (nightly) {
+			version = Version.of(version.getMajor(), version.getMinor(), version.getPatch() + 1);
+		}
+
+		Properties properties = project.getProperties();
+		properties.setProperty("git.commit.date", info.date);
+		properties.setProperty("git.commit.hash", info.hash);
+		properties.setProperty("git.commit.branch", info.branch);
+		properties.setProperty("git.buildnumber", "" + info.buildNumber);
+		properties.setProperty("git.version", version.toString(pattern));
+		properties.setProperty("git.release", version.toString("00.00"));
+
+		getLog().info("GIT git.version=" + properties.getProperty("git.version"));
+		getLog().debug("GIT git.commit.hash=" + info.hash);
+		getLog().debug("GIT git.commit.branch=" + info.branch);
+		getLog().debug("GIT git.buildnumber=" + info.buildNumber);
+	}
+
+	/**
+	 * Resolves the GIT information for the location. Failures are cached too, so
+	 * that the other modules of the reactor don't try again.
+	 *
+	 * @param location
+	 */
+	private GitInfo resolve(File location) {
+		long buildNumber = BuildNumber.get();
+		try (GitVersion git = GitVersion.open(location)) {
+			Version version = git.getVersion();
+			if (version == null) {
+				return new GitInfo(null, null, null, null, buildNumber);
+			}
+			return new GitInfo(version, git.getHash(), git.getBranchName(), git.getISOTime(), buildNumber);
+		} catch (Exception e) {
+			getLog().error("Couldn't calculate GIT version", e);
+			return new GitInfo(null, null, null, null, buildNumber);
+		}
+	}
+
+	/**
+	 * Gets the cache of resolved versions, that is shared by all modules of the
+	 * current reactor session.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<File, GitInfo> getSessionCache() {
+		SessionData data = session.getRepositorySession().getData();
+		Object cache = data.get(GitMojo.SESSION_KEY);
+		if (cache == null) {
+			data.set(GitMojo.SESSION_KEY, null, new ConcurrentHashMap<File, GitInfo>());
+			cache = data.get(GitMojo.SESSION_KEY);
+		}
+		return (Map<File, GitInfo>) cache;
+	}
+
+	/**
+	 * The {@link GitInfo} is the cached result for one reactor session.
+	 */
+	private static class GitInfo {
+
+		private final Version version;
+		private final String hash;
+		private final String branch;
+		private final String date;
+		private final long buildNumber;
+
+		/**
+		 * Constructs an instance of {@link GitInfo}.
+		 *
+		 * @param version
+		 * @param hash
+		 * @param branch
+		 * @param date
+		 * @param buildNumber
+		 */
+		private GitInfo(Version version, String hash, String branch, String date, long buildNumber) {
+			this.version = version;
+			this.hash = hash;
+			this.branch = branch;
+			this.date = date;
+			this.buildNumber = buildNumber;
+		}
+	}
+}
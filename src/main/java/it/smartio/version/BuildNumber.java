@@ -15,19 +15,13 @@
 
 package it.smartio.version;
 
-import java.time.LocalDate;
-import java.time.LocalTime;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
-
 /**
  * The {@link BuildNumber} class.
  */
 public class BuildNumber {
 
 	private static final long HOURS = 1000 * 3600;
-	private static final OffsetDateTime START_TIMESTAMP = OffsetDateTime.of(LocalDate.of(2016, 1, 1),
-			LocalTime.of(0, 0), ZoneOffset.ofHours(0));
+	private static final long START_TIMESTAMP = 1451606400000L; // 2016-01-01T00:00:00Z
 
 	/**
 	 * Constructs an instance of {@link BuildNumber}.
@@ -39,6 +33,6 @@ public class BuildNumber {
 	 * Constructs an instance of {@link BuildNumber}.
 	 */
 	public static long get() {
-		return (System.currentTimeMillis() - START_TIMESTAMP.toInstant().toEpochMilli()) / HOURS;
+		return (System.currentTimeMillis() - START_TIMESTAMP) / HOURS;
 	}
 }
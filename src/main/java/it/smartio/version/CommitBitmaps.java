@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.version;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link CommitBitmaps} computes the commits reachable from a commit with
+ * the reachability bitmaps of a packed repository. Only commits without a
+ * stored bitmap are walked, trees and blobs are never visited. The commits of a
+ * bitmap are counted with the commit type bitmap of the pack.
+ *
+ * The bitmap index is read through the internal storage API of JGit, as the
+ * public API doesn't provide the bitmaps by object type. The opened indexes are
+ * cached by bitmap file, its modification time and its size, and shared by all
+ * threads: the index is only read after it has been opened.
+ */
+class CommitBitmaps {
+
+	private static final int CACHE_SIZE = 16;
+
+	private static final Map<File, CommitBitmaps> CACHE = new LinkedHashMap<File, CommitBitmaps>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, CommitBitmaps> eldest) {
+			return size() > CommitBitmaps.CACHE_SIZE;
+		}
+	};
+
+	private final PackBitmapIndex index;
+	private final long modified;
+	private final long length;
+
+	/**
+	 * Constructs an instance of {@link CommitBitmaps}.
+	 *
+	 * @param index
+	 * @param modified
+	 * @param length
+	 */
+	private CommitBitmaps(PackBitmapIndex index, long modified, long length) {
+		this.index = index;
+		this.modified = modified;
+		this.length = length;
+	}
+
+	/**
+	 * Computes the commits reachable from the commit.
+	 *
+	 * @param walk
+	 * @param commit
+	 */
+	final Reach reach(RevWalk walk, RevCommit commit) throws IOException {
+		EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+		Set<ObjectId> walked = new HashSet<>();
+		Set<ObjectId> seen = new HashSet<>();
+
+		Deque<RevCommit> pending = new ArrayDeque<>();
+		pending.add(commit);
+		while (!pending.isEmpty()) {
+			RevCommit rev = pending.poll();
+			if (!seen.add(rev) || contains(bitmap, rev)) {
+				continue;
+			}
+
+			EWAHCompressedBitmap stored = index.getBitmap(rev);
+			if (stored != null) {
+				bitmap = bitmap.or(stored);
+				continue;
+			}
+
+			walked.add(rev);
+			walk.parseHeaders(rev);
+			for (RevCommit parent : rev.getParents()) {
+				pending.add(parent);
+			}
+		}
+
+		int count = index.ofObjectType(bitmap, Constants.OBJ_COMMIT).cardinality();
+		for (ObjectId id : walked) {
+			if (!contains(bitmap, id)) {
+				count++;
+			}
+		}
+		return new Reach(bitmap, walked, count);
+	}
+
+	/**
+	 * Returns <code>true</code> if the object is part of the bitmap.
+	 *
+	 * @param bitmap
+	 * @param id
+	 */
+	private boolean contains(EWAHCompressedBitmap bitmap, AnyObjectId id) {
+		int position = index.findPosition(id);
+		return (position >= 0) && bitmap.get(position);
+	}
+
+	/**
+	 * Opens the reachability bitmaps of the repository, or returns
+	 * <code>null</code> if no pack has a bitmap index. A cached index is used,
+	 * if the bitmap file hasn't changed since it has been read.
+	 *
+	 * @param repository
+	 */
+	static CommitBitmaps open(Repository repository) throws IOException {
+		ObjectDatabase database = repository.getObjectDatabase();
+		if (!(database instanceof ObjectDirectory)) {
+			return null;
+		}
+
+		for (Pack pack : ((ObjectDirectory) database).getPacks()) {
+			PackFile file = pack.getPackFile().create(PackExt.BITMAP_INDEX);
+			if (file.isFile()) {
+				return CommitBitmaps.open(pack, file.getAbsoluteFile());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the cached bitmaps of the pack or reads the bitmap file.
+	 *
+	 * @param pack
+	 * @param file
+	 */
+	private static CommitBitmaps open(Pack pack, File file) throws IOException {
+		long modified = file.lastModified();
+		long length = file.length();
+		synchronized (CommitBitmaps.CACHE) {
+			CommitBitmaps bitmaps = CommitBitmaps.CACHE.get(file);
+			if ((bitmaps != null) && (bitmaps.modified == modified) && (bitmaps.length == length)) {
+				return bitmaps;
+			}
+		}
+
+		PackBitmapIndex index = PackBitmapIndex.open(file, pack.getIndex(), new PackReverseIndex(pack.getIndex()));
+		CommitBitmaps bitmaps = new CommitBitmaps(index, modified, length);
+		synchronized (CommitBitmaps.CACHE) {
+			CommitBitmaps.CACHE.put(file, bitmaps);
+		}
+		return bitmaps;
+	}
+
+	/**
+	 * The {@link Reach} are the commits reachable from a commit: the objects of
+	 * a bitmap and the commits walked outside of the bitmap.
+	 */
+	class Reach {
+
+		private final EWAHCompressedBitmap bitmap;
+		private final Set<ObjectId> walked;
+		private final int count;
+
+		/**
+		 * Constructs an instance of {@link Reach}.
+		 *
+		 * @param bitmap
+		 * @param walked
+		 * @param count
+		 */
+		private Reach(EWAHCompressedBitmap bitmap, Set<ObjectId> walked, int count) {
+			this.bitmap = bitmap;
+			this.walked = walked;
+			this.count = count;
+		}
+
+		/**
+		 * Gets the number of reachable commits.
+		 */
+		public final int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns <code>true</code> if the commit is reachable.
+		 *
+		 * @param id
+		 */
+		public final boolean contains(AnyObjectId id) {
+			return walked.contains(id) || CommitBitmaps.this.contains(bitmap, id);
+		}
+	}
+}
@@ -15,10 +15,8 @@
 
 package it.smartio.version;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -26,107 +24,184 @@ import org.eclipse.jgit.revwalk.RevWalkUtils;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Collection;
-import java.util.Optional;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * The {@link GitVersion} is a utility to fetch version information from the GIT
- * repository.
+ * repository. Each information is computed on first access and kept, so that
+ * a caller only pays for the information it uses. The repository is kept open
+ * until the {@link GitVersion} is closed.
+ *
+ * If the repository is packed with reachability bitmaps, the commit count and
+ * the distances of the tags are computed from the commit bitmaps. Only commits
+ * that are not covered by a bitmap are walked. The system property
+ * {@value #BITMAPS} set to <code>false</code> walks all commits instead.
  */
-public class GitVersion {
+public class GitVersion implements AutoCloseable {
+
+	public static final String BITMAPS = "git.version.bitmap";
+
+	private final Repository repository;
+	private final VersionCache cache;
+	private final boolean cacheOwner;
+	private final ObjectId head;
 
-	private static final DateTimeFormatter BASIC_ISO = DateTimeFormatter.ofPattern("yyyy-MM-mm hh:mm:ss xx");
-	private static final Pattern PATTERN = Pattern.compile(
-			"(?<major>\\d+)[./](?<minor>\\d+)(?:[./](?<patch>\\d+))?(?:-(?<name>[a-zA-Z0-9.]+))?(?:\\+(?<build>[a-zA-Z0-9.]+))?");
+	private RevWalk walk;
+	private RevCommit commit;
+	private boolean closed;
 
-	private final String name;
-	private final String hash;
-	private final int count;
+	private CommitBitmaps.Reach reachable;
+	private final Map<ObjectId, Integer> distances = new HashMap<>();
 
-	private final String branch;
-	private final Version version;
-	private final OffsetDateTime dateTime;
+	private String hash;
+	private String branch;
+	private OffsetDateTime dateTime;
+
+	private TagInfo tag;
+	private boolean tagResolved;
+	private int count = -1;
 
 	/**
 	 * Constructs an instance of {@link GitVersion}.
 	 *
-	 * @param hash
-	 * @param name
-	 * @param count
+	 * @param repository
+	 */
+	private GitVersion(Repository repository) {
+		this(new VersionCache(repository), true, null, null);
+	}
+
+	/**
+	 * Constructs an instance of {@link GitVersion} for a commit and branch, that
+	 * are used instead of the HEAD commit and the current branch. If they are
+	 * <code>null</code>, HEAD is resolved on first use.
+	 *
+	 * @param cache
+	 * @param cacheOwner
+	 * @param head
 	 * @param branch
-	 * @param version
-	 * @param dateTime
 	 */
-	private GitVersion(String hash, String name, int count, String branch, Version version, OffsetDateTime dateTime) {
-		this.name = name;
-		this.hash = hash;
-		this.count = count;
+	private GitVersion(VersionCache cache, boolean cacheOwner, ObjectId head, String branch) {
+		this.repository = cache.getRepository();
+		this.cache = cache;
+		this.cacheOwner = cacheOwner;
+		this.head = head;
 		this.branch = branch;
-		this.version = version;
-		this.dateTime = dateTime;
 	}
 
 	/**
-	 * Gets the {@link #hash}.
+	 * Gets the abbreviated hash of the HEAD commit.
 	 */
-	public final String getHash() {
+	public final synchronized String getHash() {
+		if (hash == null) {
+			hash = getCommit().getName().substring(0, 9);
+		}
 		return hash;
 	}
 
 	/**
-	 * Gets the {@link #hash}.
+	 * Gets the number of commits reachable from HEAD.
 	 */
-	public final int getCount() {
+	public final synchronized int getCount() {
+		if (count < 0) {
+			try {
+				count = (getCache().getBitmaps() == null) ? getCache().getCount(getWalk(), getCommit())
+						: getReachable().getCount();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 		return count;
 	}
 
 	/**
 	 * Gets the tag name.
 	 */
-	public final String getTagName() {
-		return name;
+	public final synchronized String getTagName() {
+		TagInfo info = getTag();
+		return (info == null) ? null : info.getName();
 	}
 
 	/**
-	 * Gets the {@link #branch}.
+	 * Gets the current branch name.
 	 */
-	public final String getBranchName() {
+	public final synchronized String getBranchName() {
+		if (branch == null) {
+			try {
+				branch = getRepository().getBranch();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 		return branch;
 	}
 
 	/**
-	 * Gets the {@link #version}.
+	 * Gets the {@link Version} of the nearest tag, or <code>null</code> if no
+	 * tag is reachable.
 	 */
-	public final Version getVersion() {
-		return version;
+	public final synchronized Version getVersion() {
+		TagInfo info = getTag();
+		return (info == null) ? null : info.getVersion();
 	}
 
 	/**
-	 * Gets the {@link #dateTime}.
+	 * Gets the author time of the HEAD commit.
 	 */
-	public final OffsetDateTime getTime() {
+	public final synchronized OffsetDateTime getTime() {
+		if (dateTime == null) {
+			RevCommit rev = getCommit();
+			try {
+				// A walk that marked HEAD as uninteresting has disposed the body
+				getWalk().parseBody(rev);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			dateTime = getTime(rev);
+		}
 		return dateTime;
 	}
 
 	/**
-	 * Gets the {@link #dateTime}.
+	 * Gets the {@link #getTime()} as ISO date time.
 	 */
 	public final String getISOTime() {
-		return dateTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+		return getTime().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
 	}
 
 	/**
-	 * Gets the {@link #dateTime}.
+	 * Gets the {@link #getTime()} as simple date time.
 	 */
 	public final String getSimpleTime() {
-		return dateTime.format(GitVersion.BASIC_ISO);
+		return getTime().format(Formats.BASIC_ISO);
+	}
+
+	/**
+	 * Closes the repository. Information that has already been computed stays
+	 * available.
+	 */
+	@Override
+	public final synchronized void close() {
+		if (!closed) {
+			closed = true;
+			if (walk != null) {
+				cache.release(walk);
+			}
+			if (cacheOwner) {
+				cache.close();
+			}
+			repository.close();
+		}
 	}
 
 	/**
@@ -134,38 +209,243 @@ public class GitVersion {
 	 */
 	@Override
 	public String toString() {
-		return version.toString("00.00.0");
+		Version version = getVersion();
+		return (version == null) ? getHash() : version.toString("00.00.0");
+	}
+
+	/**
+	 * Gets the open {@link Repository}.
+	 */
+	private Repository getRepository() {
+		return getCache().getRepository();
 	}
 
 	/**
-	 * Get the latest {@link GitVersion} for a branch.
+	 * Gets the {@link VersionCache} of the open repository.
+	 */
+	private VersionCache getCache() {
+		if (closed) {
+			throw new IllegalStateException("The GIT repository is already closed");
+		}
+		return cache;
+	}
+
+	/**
+	 * Gets the {@link RevWalk}, that is shared by all computations. The walk is
+	 * borrowed from the {@link VersionCache} and returned on close.
+	 */
+	private RevWalk getWalk() {
+		if (walk == null) {
+			walk = getCache().borrow();
+		}
+		return walk;
+	}
+
+	/**
+	 * Gets the HEAD commit.
+	 */
+	private RevCommit getCommit() {
+		if (commit == null) {
+			try {
+				ObjectId refId = (head == null) ? getRepository().resolve(Constants.HEAD) : head;
+				if (refId == null) {
+					throw new IllegalStateException("No HEAD commit in " + repository.getDirectory());
+				}
+				commit = getWalk().parseCommit(refId);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return commit;
+	}
+
+	/**
+	 * Gets the nearest tag with a version.
+	 */
+	private TagInfo getTag() {
+		if (!tagResolved) {
+			try {
+				tag = getTags().stream().findFirst().orElse(null);
+				if (tag != null) {
+					// The index keeps the major, minor and patch number only
+					tag = new TagInfo(tag.getName(), tag.count, Version.parse(tag.getName(), Formats.PATTERN));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			tagResolved = true;
+		}
+		return tag;
+	}
+
+	/**
+	 * Gets the commits reachable from HEAD.
+	 */
+	private CommitBitmaps.Reach getReachable() throws IOException {
+		if (reachable == null) {
+			reachable = getCache().getReach(getWalk(), getCommit());
+		}
+		return reachable;
+	}
+
+	/**
+	 * Gets the number of commits reachable from HEAD, but not from the tag
+	 * commit, or -1 if the tag commit is not reachable from HEAD. The distance
+	 * is kept per commit, as many tags may point to the same commit.
+	 *
+	 * @param tagId
+	 */
+	private int getDistance(ObjectId tagId) throws IOException {
+		Integer distance = distances.get(tagId);
+		if (distance == null) {
+			distance = computeDistance(tagId);
+			distances.put(tagId, distance);
+		}
+		return distance;
+	}
+
+	/**
+	 * Computes the number of commits reachable from HEAD, but not from the tag
+	 * commit.
+	 *
+	 * @param tagId
+	 */
+	private int computeDistance(ObjectId tagId) throws IOException {
+		RevWalk revWalk = getWalk();
+		RevCommit rev = getCommit();
+		if (getCache().getBitmaps() == null) {
+			RevCommit tagCommit = revWalk.parseCommit(tagId);
+			return revWalk.isMergedInto(tagCommit, rev) ? RevWalkUtils.count(revWalk, rev, tagCommit) : -1;
+		}
+
+		// The commits of the tag are a subset of the commits of HEAD
+		if (!getReachable().contains(tagId)) {
+			return -1;
+		}
+		RevCommit tagCommit = revWalk.parseCommit(tagId);
+		return getReachable().getCount() - getCache().getCount(revWalk, tagCommit);
+	}
+
+	/**
+	 * Get all reachable tags, ordered by distance and version number. The tags
+	 * are read from the {@link TagIndex}, so that only new or moved tags have to
+	 * be peeled and parsed.
+	 */
+	private Collection<TagInfo> getTags() throws IOException {
+		return getCache().getTags(Formats.PATTERN).stream().filter(t -> t.getVersion() != null)
+				.map(tag -> {
+					try {
+						int count = getDistance(tag.getObjectId());
+						if (count != -1) {
+							return new TagInfo(tag.getName(), count, tag.getVersion());
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+					return new TagInfo(tag.getName(), -1, null);
+				}).filter(i -> i.count != -1).sorted().collect(Collectors.toList());
+	}
+
+	/**
+	 * Opens the GIT repository at the location. The version information is
+	 * computed on demand, the {@link GitVersion} must be closed after use.
 	 *
 	 * @param location
 	 */
-	public static GitVersion getLatestVersion(File location) throws Exception {
+	public static GitVersion open(File location) throws IOException {
 		FileRepositoryBuilder builder = new FileRepositoryBuilder();
 		// repositoryBuilder.addCeilingDirectory(home);
 		builder.findGitDir(location);
+		return new GitVersion(builder.build());
+	}
 
-		Optional<GitVersion> info = Optional.empty();
-		try (Repository repo = builder.build()) {
-			ObjectId refId = repo.resolve("HEAD");
-			try (RevWalk walk = new RevWalk(repo)) {
-				RevCommit revCommit = walk.parseCommit(refId);
-
-				String branch = repo.getBranch();
-				OffsetDateTime time = getTime(revCommit);
-				String hash = revCommit.getName().substring(0, 9);
-				try (Git git = new Git(repo)) {
-					int build = getCount(git);
-					Stream<TagInfo> stream = getTags(git, revCommit, walk).stream();
-					info = stream.map(i -> new GitVersion(hash, i.getName(), build, branch, i.getVersion(), time))
-							.findFirst();
-				}
-			}
+	/**
+	 * Get the latest {@link GitVersion} for a branch. All information is computed
+	 * eagerly and the repository is closed afterwards.
+	 *
+	 * @param location
+	 */
+	public static GitVersion getLatestVersion(File location) throws Exception {
+		try (GitVersion git = GitVersion.open(location)) {
+			return git.resolve();
+		}
+	}
+
+	/**
+	 * Get the latest {@link GitVersion} of an open repository. All information is
+	 * computed eagerly, the repository stays open for the caller.
+	 *
+	 * @param repository
+	 */
+	public static GitVersion getLatestVersion(Repository repository) {
+		return GitVersion.getLatestVersion(repository, null, null);
+	}
+
+	/**
+	 * Get the latest {@link GitVersion} of an open repository for the commit and
+	 * branch, which are used as HEAD. All information is computed eagerly, the
+	 * repository stays open for the caller.
+	 *
+	 * @param repository
+	 * @param commit
+	 * @param branch
+	 */
+	public static GitVersion getLatestVersion(Repository repository, ObjectId commit, String branch) {
+		repository.incrementOpen();
+		try (GitVersion git = new GitVersion(new VersionCache(repository), true, commit, branch)) {
+			return git.resolve();
+		}
+	}
+
+	/**
+	 * Get the latest {@link GitVersion} for the commit and branch, using the
+	 * {@link VersionCache} of an open repository, that is shared by many
+	 * computations. A result of an earlier computation is reused, if the tags
+	 * haven't changed since.
+	 *
+	 * @param cache
+	 * @param commit
+	 * @param branch
+	 */
+	static GitVersion getLatestVersion(VersionCache cache, ObjectId commit, String branch) throws IOException {
+		List<TagIndex.Tag> tags = cache.getTags(Formats.PATTERN);
+		VersionCache.Result result = cache.getResult(commit, branch, tags);
+		if (result != null) {
+			return result.getVersion();
+		}
+
+		cache.getRepository().incrementOpen();
+		try (GitVersion git = new GitVersion(cache, false, commit, branch)) {
+			GitVersion version = git.resolve();
+			cache.putResult(commit, branch, tags, version);
+			return version;
 		}
+	}
+
+	/**
+	 * Computes all information, or returns <code>null</code> if no version is
+	 * reachable.
+	 */
+	private GitVersion resolve() {
+		if (getVersion() == null) {
+			return null;
+		}
+		getHash();
+		getBranchName();
+		getTime();
+		getCount();
+		return this;
+	}
+
+	/**
+	 * The {@link Formats} holds the pattern and formatter, which are created on
+	 * first use, not when the {@link GitVersion} is loaded.
+	 */
+	private static class Formats {
 
-		return info.orElse(null);
+		private static final DateTimeFormatter BASIC_ISO = DateTimeFormatter.ofPattern("yyyy-MM-mm hh:mm:ss xx");
+		private static final Pattern PATTERN = Pattern.compile(
+				"(?<major>\\d+)[./](?<minor>\\d+)(?:[./](?<patch>\\d+))?(?:-(?<name>[a-zA-Z0-9.]+))?(?:\\+(?<build>[a-zA-Z0-9.]+))?");
 	}
 
 	/**
@@ -173,44 +453,28 @@ public class GitVersion {
 	 */
 	private static class TagInfo implements Comparable<TagInfo> {
 
-		private final Ref ref;
+		private final String name;
 		private final int count;
 		private final Version version;
 
 		/**
 		 * Constructs an instance of {@link TagInfo}.
 		 *
-		 * @param ref
-		 */
-		private TagInfo(Ref ref) {
-			this(ref, -1, null);
-		}
-
-		/**
-		 * Constructs an instance of {@link TagInfo}.
-		 *
-		 * @param ref
+		 * @param name
 		 * @param count
 		 * @param version
 		 */
-		private TagInfo(Ref ref, int count, Version version) {
-			this.ref = ref;
+		private TagInfo(String name, int count, Version version) {
+			this.name = name;
 			this.count = count;
 			this.version = version;
 		}
 
 		/**
-		 * Gets the {@link #ref}.
-		 */
-		public final Ref getRef() {
-			return ref;
-		}
-
-		/**
-		 * Gets the {@link #ref}.
+		 * Gets the {@link #name}.
 		 */
 		public final String getName() {
-			return getRef().getName();
+			return name;
 		}
 
 		/**
@@ -230,41 +494,4 @@ public class GitVersion {
 		long instant = revCommit.getAuthorIdent().getWhen().getTime();
 		return Instant.ofEpochMilli(instant).atZone(ZoneId.systemDefault()).toOffsetDateTime();
 	}
-
-	/**
-	 * Count the number of commits {@link #getCount}.
-	 *
-	 * @param git
-	 */
-	@SuppressWarnings("unused")
-	private static int getCount(Git git) throws GitAPIException {
-		int count = 0;
-		for (RevCommit commit : git.log().call()) {
-			count++;
-		}
-		return count;
-	}
-
-	/**
-	 * Get all reachable tags, ordered by version number.
-	 *
-	 * @param git
-	 * @param rev
-	 * @param walk
-	 */
-	private static Collection<TagInfo> getTags(Git git, RevCommit rev, RevWalk walk) throws GitAPIException {
-		return git.tagList().call().stream().map(tag -> {
-			try {
-				RevCommit tagCommit = walk.parseCommit(tag.getObjectId());
-				if (walk.isMergedInto(tagCommit, rev)) {
-					Version version = Version.parse(tag.getName(), PATTERN);
-					int count = RevWalkUtils.count(walk, rev, tagCommit);
-					return new TagInfo(tag, count, version);
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-			return new TagInfo(tag, -1, null);
-		}).filter(i -> i.count != -1).sorted().collect(Collectors.toList());
-	}
 }
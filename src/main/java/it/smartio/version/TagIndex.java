@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.version;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link TagIndex} is a persistent index of the tags of a repository. For
+ * each tag the index stores the name, the object id of the ref, the peeled
+ * commit id and the packed version key, sorted by name.
+ *
+ * The index is read with a single read of the file and refreshed
+ * incrementally: only tags that are new or have been moved since the last run
+ * are peeled and parsed, all other tags are found by a binary search in the
+ * index. The file is not memory-mapped, as a mapping can't be released before
+ * the file is replaced, which fails on Windows.
+ *
+ * <pre>
+ * header: magic (int), format (int), pattern hash (int), count (int)
+ * entry:  name offset (int), name length (int), ref id (20), peeled id (20), version key (long)
+ * names:  UTF-8 encoded tag names
+ * </pre>
+ */
+class TagIndex {
+
+	private static final String FILE_NAME = "git-version-tags.idx";
+
+	private static final int MAGIC = 0x47564958; // GVIX
+	private static final int FORMAT = 2;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int ENTRY_SIZE = 8 + (2 * Constants.OBJECT_ID_LENGTH) + 8;
+
+	private static final long NO_VERSION = -1;
+	private static final long UNPACKED = -2;
+
+	private static final int MAJOR_BITS = 24;
+	private static final int MINOR_BITS = 20;
+	private static final int PATCH_BITS = 19;
+
+	private final ByteBuffer buffer;
+	private final int count;
+
+	/**
+	 * Constructs an instance of {@link TagIndex}.
+	 *
+	 * @param buffer
+	 * @param count
+	 */
+	private TagIndex(ByteBuffer buffer, int count) {
+		this.buffer = buffer;
+		this.count = count;
+	}
+
+	/**
+	 * Finds the position of the entry with the tag name, using a binary search.
+	 * Returns -1 if the index has no entry for the name.
+	 *
+	 * @param name
+	 */
+	private int find(byte[] name) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int result = compare(middle, name);
+			if (result < 0) {
+				low = middle + 1;
+			} else if (result > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the name of the entry at the position with the name.
+	 *
+	 * @param position
+	 * @param name
+	 */
+	private int compare(int position, byte[] name) {
+		int entry = TagIndex.HEADER_SIZE + (position * TagIndex.ENTRY_SIZE);
+		int offset = buffer.getInt(entry);
+		int length = buffer.getInt(entry + 4);
+		int size = Math.min(length, name.length);
+		for (int i = 0; i < size; i++) {
+			int result = Integer.compare(buffer.get(offset + i) & 0xff, name[i] & 0xff);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(length, name.length);
+	}
+
+	/**
+	 * Gets the object id at the offset of the buffer.
+	 *
+	 * @param offset
+	 */
+	private ObjectId getObjectId(int offset) {
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < raw.length; i++) {
+			raw[i] = buffer.get(offset + i);
+		}
+		return ObjectId.fromRaw(raw);
+	}
+
+	/**
+	 * Loads the tags of the repository, refreshing the persistent index if tags
+	 * have been added, moved or deleted. The pattern is used to parse the
+	 * version of the tags that are not indexed yet. An index written with
+	 * another pattern is discarded, as its version keys would differ.
+	 *
+	 * @param repository
+	 * @param pattern
+	 */
+	static List<Tag> load(Repository repository, Pattern pattern) throws IOException {
+		return TagIndex.load(repository, repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS), pattern);
+	}
+
+	/**
+	 * Loads the tags for the tag refs, that have been read by the caller.
+	 *
+	 * @param repository
+	 * @param refs
+	 * @param pattern
+	 */
+	static List<Tag> load(Repository repository, List<Ref> refs, Pattern pattern) throws IOException {
+		File file = (repository.getDirectory() == null) ? null
+				: new File(repository.getDirectory(), TagIndex.FILE_NAME);
+		TagIndex index = TagIndex.read(file, pattern);
+
+		RefDatabase database = repository.getRefDatabase();
+		List<Tag> tags = new ArrayList<>(refs.size());
+		boolean modified = (refs.size() != index.count);
+		for (Ref ref : refs) {
+			if (ref.getObjectId() == null) {
+				modified = true;
+				continue;
+			}
+
+			byte[] name = ref.getName().getBytes(StandardCharsets.UTF_8);
+			int position = index.find(name);
+			int entry = TagIndex.HEADER_SIZE + (position * TagIndex.ENTRY_SIZE);
+			if ((position != -1) && ref.getObjectId().equals(index.getObjectId(entry + 8))) {
+				ObjectId peeledId = index.getObjectId(entry + 8 + Constants.OBJECT_ID_LENGTH);
+				long key = index.buffer.getLong(entry + 8 + (2 * Constants.OBJECT_ID_LENGTH));
+				tags.add(new Tag(ref.getName(), name, ref.getObjectId(), peeledId, key, pattern));
+			} else {
+				Ref peeled = ref.isPeeled() ? ref : database.peel(ref);
+				ObjectId peeledId = (peeled.getPeeledObjectId() == null) ? ref.getObjectId()
+						: peeled.getPeeledObjectId();
+				long key = TagIndex.toKey(ref.getName(), pattern);
+				tags.add(new Tag(ref.getName(), name, ref.getObjectId(), peeledId, key, pattern));
+				modified = true;
+			}
+		}
+
+		if (modified && (file != null)) {
+			try {
+				TagIndex.write(file, tags, pattern);
+			} catch (AccessDeniedException e) {
+				// The index is a cache only, the repository might be read-only
+			} catch (IOException e) {
+				System.err.println("The tag index " + file + " couldn't be updated: " + e);
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * Reads the index file into a buffer on the heap. An empty index is
+	 * returned, if the file doesn't exist, is not valid or has been written with
+	 * another pattern, so that all tags are peeled again and the index is
+	 * rewritten.
+	 *
+	 * @param file
+	 * @param pattern
+	 */
+	private static TagIndex read(File file, Pattern pattern) {
+		if ((file == null) || !file.isFile()) {
+			return new TagIndex(null, 0);
+		}
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if ((buffer.limit() < TagIndex.HEADER_SIZE) || (buffer.getInt(0) != TagIndex.MAGIC)
+					|| (buffer.getInt(4) != TagIndex.FORMAT) || (buffer.getInt(8) != TagIndex.hash(pattern))) {
+				return new TagIndex(null, 0);
+			}
+
+			int count = buffer.getInt(12);
+			long names = TagIndex.HEADER_SIZE + ((long) count * TagIndex.ENTRY_SIZE);
+			if ((count < 0) || (names > buffer.limit())) {
+				return new TagIndex(null, 0);
+			}
+
+			// The names of a truncated or corrupt file must not be read
+			for (int position = 0; position < count; position++) {
+				int entry = TagIndex.HEADER_SIZE + (position * TagIndex.ENTRY_SIZE);
+				long offset = buffer.getInt(entry);
+				long length = buffer.getInt(entry + 4);
+				if ((offset < names) || (length < 0) || (offset + length > buffer.limit())) {
+					return new TagIndex(null, 0);
+				}
+			}
+			return new TagIndex(buffer, count);
+		} catch (IOException e) {
+			return new TagIndex(null, 0);
+		}
+	}
+
+	/**
+	 * Writes the tags sorted by name to a temporary file, that replaces the index
+	 * file.
+	 *
+	 * @param file
+	 * @param tags
+	 * @param pattern
+	 */
+	private static void write(File file, List<Tag> tags, Pattern pattern) throws IOException {
+		Tag[] sorted = tags.toArray(new Tag[tags.size()]);
+		Arrays.sort(sorted, (t1, t2) -> TagIndex.compare(t1.raw, t2.raw));
+
+		int names = 0;
+		for (Tag tag : sorted) {
+			names += tag.raw.length;
+		}
+
+		int offset = TagIndex.HEADER_SIZE + (sorted.length * TagIndex.ENTRY_SIZE);
+		ByteBuffer buffer = ByteBuffer.allocate(offset + names);
+		buffer.putInt(TagIndex.MAGIC);
+		buffer.putInt(TagIndex.FORMAT);
+		buffer.putInt(TagIndex.hash(pattern));
+		buffer.putInt(sorted.length);
+
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (Tag tag : sorted) {
+			buffer.putInt(offset);
+			buffer.putInt(tag.raw.length);
+			tag.refId.copyRawTo(raw, 0);
+			buffer.put(raw);
+			tag.objectId.copyRawTo(raw, 0);
+			buffer.put(raw);
+			buffer.putLong(tag.key);
+			offset += tag.raw.length;
+		}
+		for (Tag tag : sorted) {
+			buffer.put(tag.raw);
+		}
+		buffer.flip();
+
+		Path temp = Files.createTempFile(file.getParentFile().toPath(), TagIndex.FILE_NAME, ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			try {
+				Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Compares two UTF-8 encoded names byte by byte.
+	 *
+	 * @param name1
+	 * @param name2
+	 */
+	private static int compare(byte[] name1, byte[] name2) {
+		int size = Math.min(name1.length, name2.length);
+		for (int i = 0; i < size; i++) {
+			int result = Integer.compare(name1[i] & 0xff, name2[i] & 0xff);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(name1.length, name2.length);
+	}
+
+	/**
+	 * Gets the hash of the pattern, that identifies the pattern the version keys
+	 * have been parsed with.
+	 *
+	 * @param pattern
+	 */
+	private static int hash(Pattern pattern) {
+		return (31 * pattern.pattern().hashCode()) + pattern.flags();
+	}
+
+	/**
+	 * Parses the tag name and packs the major, minor and patch number to a
+	 * version key.
+	 *
+	 * @param name
+	 * @param pattern
+	 */
+	private static long toKey(String name, Pattern pattern) {
+		Version version;
+		try {
+			version = Version.parse(name, pattern);
+		} catch (IllegalArgumentException e) {
+			return TagIndex.NO_VERSION;
+		}
+
+		long patch = version.getPatch() + 1L;
+		if ((version.getMajor() >= (1 << TagIndex.MAJOR_BITS)) || (version.getMinor() >= (1 << TagIndex.MINOR_BITS))
+				|| (patch >= (1 << TagIndex.PATCH_BITS))) {
+			return TagIndex.UNPACKED;
+		}
+		return ((long) version.getMajor() << (TagIndex.MINOR_BITS + TagIndex.PATCH_BITS))
+				| ((long) version.getMinor() << TagIndex.PATCH_BITS) | patch;
+	}
+
+	/**
+	 * Unpacks the {@link Version} from the key. The pre-release name and build
+	 * are not part of the key.
+	 *
+	 * @param key
+	 */
+	private static Version toVersion(long key) {
+		int major = (int) (key >>> (TagIndex.MINOR_BITS + TagIndex.PATCH_BITS));
+		int minor = (int) ((key >>> TagIndex.PATCH_BITS) & ((1 << TagIndex.MINOR_BITS) - 1));
+		int patch = (int) (key & ((1 << TagIndex.PATCH_BITS) - 1)) - 1;
+		return Version.of(major, minor, patch);
+	}
+
+	/**
+	 * The {@link Tag} is an entry of the {@link TagIndex}.
+	 */
+	static class Tag {
+
+		private final String name;
+		private final byte[] raw;
+		private final ObjectId refId;
+		private final ObjectId objectId;
+		private final long key;
+		private final Version version;
+
+		/**
+		 * Constructs an instance of {@link Tag}.
+		 *
+		 * @param name
+		 * @param raw
+		 * @param refId
+		 * @param objectId
+		 * @param key
+		 * @param pattern
+		 */
+		private Tag(String name, byte[] raw, ObjectId refId, ObjectId objectId, long key, Pattern pattern) {
+			this.name = name;
+			this.raw = raw;
+			this.refId = refId;
+			this.objectId = objectId;
+			this.key = key;
+			if (key == TagIndex.NO_VERSION) {
+				this.version = null;
+			} else if (key == TagIndex.UNPACKED) {
+				this.version = Version.parse(name, pattern);
+			} else {
+				this.version = TagIndex.toVersion(key);
+			}
+		}
+
+		/**
+		 * Gets the tag name.
+		 */
+		public final String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the object id of the ref, a tag object or a commit.
+		 */
+		public final ObjectId getRefId() {
+			return refId;
+		}
+
+		/**
+		 * Gets the peeled object id, usually the tagged commit.
+		 */
+		public final ObjectId getObjectId() {
+			return objectId;
+		}
+
+		/**
+		 * Gets the major, minor and patch number of the tag, or <code>null</code>
+		 * if the tag is not a version.
+		 */
+		public final Version getVersion() {
+			return version;
+		}
+	}
+}
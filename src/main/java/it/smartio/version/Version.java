@@ -58,10 +58,6 @@ public final class Version implements Comparable<Version> {
 
 	private static final String PATTERN = "(?<major>\\d+)\\.(?<minor>\\d+)(?:\\.(?<patch>\\d+))?(?:-(?<name>[a-zA-Z0-9.]+))?(?:\\+(?<build>[a-zA-Z0-9.]+))?";
 
-	private static final Pattern PARSE = Pattern.compile(Version.PATTERN);
-	private static final Pattern MATCH = Pattern.compile("^" + Version.PATTERN + "$");
-	private static final Pattern FORMAT = Pattern.compile("([0]+)\\.([0]+)(?:\\.([0]+))?(?:-([0]+))?(?:\\+([0]+))?");
-
 	private final int major;
 	private final int minor;
 	private final int patch;
@@ -168,7 +164,7 @@ public final class Version implements Comparable<Version> {
 	 * @param format
 	 */
 	public final String toString(String format) {
-		Matcher matcher = Version.FORMAT.matcher(format);
+		Matcher matcher = Formatter.FORMAT.matcher(format);
 		if (!matcher.find()) {
 			return toString();
 		}
@@ -245,7 +241,7 @@ public final class Version implements Comparable<Version> {
 	 * @param text
 	 */
 	public static Version of(String text) throws IllegalArgumentException {
-		return Version.parse(text, Version.MATCH);
+		return Version.parse(text, Parser.MATCH);
 	}
 
 	/**
@@ -254,7 +250,7 @@ public final class Version implements Comparable<Version> {
 	 * @param text
 	 */
 	public static Version parse(String text) throws IllegalArgumentException {
-		return Version.parse(text, Version.PARSE);
+		return Version.parse(text, Parser.PARSE);
 	}
 
 	/**
@@ -279,4 +275,23 @@ public final class Version implements Comparable<Version> {
 		int patch = (matcher.group("patch") == null) ? -1 : Integer.parseInt(matcher.group("patch"));
 		return Version.of(major, minor, patch, matcher.group("name"), matcher.group("build"));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The {@link Parser} holds the patterns to parse a {@link Version}. The
+	 * patterns are compiled on first use, not when the {@link Version} is loaded.
+	 */
+	private static class Parser {
+
+		private static final Pattern PARSE = Pattern.compile(Version.PATTERN);
+		private static final Pattern MATCH = Pattern.compile("^" + Version.PATTERN + "$");
+	}
+
+	/**
+	 * The {@link Formatter} holds the pattern to parse a format of
+	 * {@link #toString(String)}.
+	 */
+	private static class Formatter {
+
+		private static final Pattern FORMAT = Pattern.compile("([0]+)\\.([0]+)(?:\\.([0]+))?(?:-([0]+))?(?:\\+([0]+))?");
+	}
+}
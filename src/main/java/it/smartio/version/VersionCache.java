@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.version;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.RevWalkUtils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link VersionCache} keeps the information of a repository, that doesn't
+ * depend on the HEAD of a computation: the {@link CommitBitmaps}, the tags of
+ * the {@link TagIndex} and the number of commits reachable from a commit.
+ *
+ * The result of a computation only depends on the commit, the branch and the
+ * tags, so the recent results are kept until the tags change.
+ *
+ * The cache lends out {@link RevWalk} instances: a walk is used by one thread
+ * at a time and returned afterwards, so that the next computation reuses its
+ * {@link org.eclipse.jgit.lib.ObjectReader} and the commits it has parsed.
+ */
+class VersionCache implements AutoCloseable {
+
+	private static final int REACHES = 4;
+
+	private final Repository repository;
+	private final Deque<RevWalk> walks = new ArrayDeque<>();
+	private final Map<ObjectId, Integer> counts = new ConcurrentHashMap<>();
+	private final Map<ObjectId, CommitBitmaps.Reach> reaches = new LinkedHashMap<ObjectId, CommitBitmaps.Reach>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, CommitBitmaps.Reach> eldest) {
+			return size() > VersionCache.REACHES;
+		}
+	};
+
+	private final Map<ObjectId, Result> results = new LinkedHashMap<ObjectId, Result>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, Result> eldest) {
+			return size() > VersionCache.REACHES;
+		}
+	};
+
+	private CommitBitmaps bitmaps;
+	private boolean bitmapResolved;
+
+	private List<TagIndex.Tag> tags;
+	private Pattern pattern;
+
+	private boolean closed;
+
+	/**
+	 * Constructs an instance of {@link VersionCache}.
+	 *
+	 * @param repository
+	 */
+	VersionCache(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Gets the {@link Repository}.
+	 */
+	final Repository getRepository() {
+		return repository;
+	}
+
+	/**
+	 * Lends out an idle {@link RevWalk} or creates a new one. The walk must be
+	 * returned with {@link #release(RevWalk)}.
+	 */
+	final synchronized RevWalk borrow() {
+		RevWalk walk = walks.poll();
+		return (walk == null) ? new RevWalk(repository) : walk;
+	}
+
+	/**
+	 * Returns the {@link RevWalk}, which is closed if the cache is closed.
+	 *
+	 * @param walk
+	 */
+	final synchronized void release(RevWalk walk) {
+		if (closed) {
+			walk.close();
+		} else {
+			walks.push(walk);
+		}
+	}
+
+	/**
+	 * Gets the {@link CommitBitmaps} of the packed repository, or
+	 * <code>null</code> if bitmaps are disabled, the repository has none or they
+	 * can't be read.
+	 */
+	final synchronized CommitBitmaps getBitmaps() {
+		if (!bitmapResolved) {
+			bitmapResolved = true;
+			try {
+				boolean enabled = Boolean.parseBoolean(System.getProperty(GitVersion.BITMAPS, "true"));
+				bitmaps = enabled ? CommitBitmaps.open(repository) : null;
+			} catch (IOException e) {
+				// A corrupt bitmap or a pack removed by a concurrent gc, walk instead
+				bitmaps = null;
+			}
+		}
+		return bitmaps;
+	}
+
+	/**
+	 * Gets the commits reachable from the commit, using the
+	 * {@link #getBitmaps()}. The reach of the recent commits is kept, as many
+	 * computations use the same HEAD.
+	 *
+	 * @param walk
+	 * @param commit
+	 */
+	final CommitBitmaps.Reach getReach(RevWalk walk, RevCommit commit) throws IOException {
+		synchronized (reaches) {
+			CommitBitmaps.Reach reach = reaches.get(commit);
+			if (reach != null) {
+				return reach;
+			}
+		}
+
+		CommitBitmaps.Reach reach = getBitmaps().reach(walk, commit);
+		synchronized (reaches) {
+			reaches.put(commit.copy(), reach);
+		}
+		return reach;
+	}
+
+	/**
+	 * Gets the number of commits reachable from the commit. The number never
+	 * changes for a commit, so it is computed once.
+	 *
+	 * @param walk
+	 * @param commit
+	 */
+	final int getCount(RevWalk walk, RevCommit commit) throws IOException {
+		Integer count = counts.get(commit);
+		if (count == null) {
+			CommitBitmaps commitBitmaps = getBitmaps();
+			count = (commitBitmaps == null) ? RevWalkUtils.count(walk, commit, null)
+					: commitBitmaps.reach(walk, commit).getCount();
+			counts.put(commit.copy(), count);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the tags of the {@link TagIndex}. The tags are kept, until a tag ref
+	 * has been added, moved or deleted.
+	 *
+	 * @param tagPattern
+	 */
+	final synchronized List<TagIndex.Tag> getTags(Pattern tagPattern) throws IOException {
+		List<Ref> refs = repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+		if ((tags == null) || (pattern != tagPattern) || !VersionCache.isSame(tags, refs)) {
+			tags = TagIndex.load(repository, refs, tagPattern);
+			pattern = tagPattern;
+		}
+		return tags;
+	}
+
+	/**
+	 * Gets the result computed for the commit and branch with the tags, or
+	 * <code>null</code> if there is none.
+	 *
+	 * @param commit
+	 * @param branch
+	 * @param tagList
+	 */
+	final Result getResult(ObjectId commit, String branch, List<TagIndex.Tag> tagList) {
+		synchronized (results) {
+			Result result = results.get(commit);
+			return ((result != null) && result.branch.equals(branch) && (result.tags == tagList)) ? result : null;
+		}
+	}
+
+	/**
+	 * Keeps the result computed for the commit and branch with the tags.
+	 *
+	 * @param commit
+	 * @param branch
+	 * @param tagList
+	 * @param version
+	 */
+	final void putResult(ObjectId commit, String branch, List<TagIndex.Tag> tagList, GitVersion version) {
+		synchronized (results) {
+			results.put(commit.copy(), new Result(branch, tagList, version));
+		}
+	}
+
+	/**
+	 * Closes the idle {@link RevWalk} instances, the walks in use are closed
+	 * when they are returned. The {@link Repository} is closed by the owner.
+	 */
+	@Override
+	public final synchronized void close() {
+		closed = true;
+		walks.forEach(RevWalk::close);
+		walks.clear();
+	}
+
+	/**
+	 * Returns <code>true</code> if the tags are loaded from the same refs.
+	 *
+	 * @param tags
+	 * @param refs
+	 */
+	private static boolean isSame(List<TagIndex.Tag> tags, List<Ref> refs) {
+		if (tags.size() != refs.size()) {
+			return false;
+		}
+		for (int i = 0; i < refs.size(); i++) {
+			Ref ref = refs.get(i);
+			TagIndex.Tag tag = tags.get(i);
+			if (!ref.getName().equals(tag.getName()) || !tag.getRefId().equals(ref.getObjectId())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The {@link Result} is a computed {@link GitVersion}, which is
+	 * <code>null</code> if no version is reachable.
+	 */
+	static class Result {
+
+		private final String branch;
+		private final List<TagIndex.Tag> tags;
+		private final GitVersion version;
+
+		/**
+		 * Constructs an instance of {@link Result}.
+		 *
+		 * @param branch
+		 * @param tags
+		 * @param version
+		 */
+		private Result(String branch, List<TagIndex.Tag> tags, GitVersion version) {
+			this.branch = branch;
+			this.tags = tags;
+			this.version = version;
+		}
+
+		/**
+		 * Gets the {@link #version}.
+		 */
+		public final GitVersion getVersion() {
+			return version;
+		}
+	}
+}
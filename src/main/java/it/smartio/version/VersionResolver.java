@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package it.smartio.version;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The {@link VersionResolver} resolves the latest {@link GitVersion} of many
+ * repositories from many threads. The resolver keeps a bounded pool of open
+ * {@link Repository} instances, the least recently used repository is closed
+ * when the pool is full.
+ *
+ * Each pooled repository has a {@link VersionCache}, that keeps the commit
+ * bitmaps, the tag index and the commit counts between requests. The cache
+ * lends a {@link org.eclipse.jgit.revwalk.RevWalk} with its
+ * {@link org.eclipse.jgit.lib.ObjectReader} to one thread at a time, and
+ * takes it back for the next request. Concurrent requests for the same
+ * repository and HEAD are served by a single computation.
+ */
+public class VersionResolver implements AutoCloseable {
+
+	private final Map<File, VersionCache> repositories;
+	private final Map<Key, CompletableFuture<GitVersion>> pending = new ConcurrentHashMap<>();
+
+	private boolean closed;
+
+	/**
+	 * Constructs an instance of {@link VersionResolver}.
+	 *
+	 * @param capacity
+	 */
+	public VersionResolver(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+		}
+		this.repositories = new LinkedHashMap<File, VersionCache>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, VersionCache> eldest) {
+				if (size() > capacity) {
+					VersionResolver.close(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the latest {@link GitVersion} for the location, like
+	 * {@link GitVersion#getLatestVersion(File)}. Returns <code>null</code> if no
+	 * version is reachable.
+	 *
+	 * @param location
+	 */
+	public final GitVersion resolve(File location) throws IOException {
+		VersionCache cache = borrow(location.getAbsoluteFile());
+		Repository repository = cache.getRepository();
+		try {
+			Ref head = repository.exactRef(Constants.HEAD);
+			if ((head == null) || (head.getObjectId() == null)) {
+				throw new IOException("No HEAD commit in " + repository.getDirectory());
+			}
+
+			// The branch like Repository#getBranch(), the commit id if detached
+			String branch = head.isSymbolic() ? Repository.shortenRefName(head.getTarget().getName())
+					: head.getObjectId().getName();
+			Key key = new Key(repository.getDirectory(), branch, head.getObjectId());
+			CompletableFuture<GitVersion> future = new CompletableFuture<>();
+			CompletableFuture<GitVersion> existing = pending.putIfAbsent(key, future);
+			if (existing != null) {
+				return VersionResolver.await(existing);
+			}
+
+			try {
+				// The HEAD of the key, as HEAD might have moved since
+				future.complete(GitVersion.getLatestVersion(cache, key.commit, key.branch));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				pending.remove(key, future);
+			}
+			return VersionResolver.await(future);
+		} finally {
+			repository.close();
+		}
+	}
+
+	/**
+	 * Closes all pooled repositories. Repositories that are in use by a running
+	 * computation are closed when the computation has finished.
+	 */
+	@Override
+	public final void close() {
+		List<VersionCache> list;
+		synchronized (repositories) {
+			closed = true;
+			list = new ArrayList<>(repositories.values());
+			repositories.clear();
+		}
+		list.forEach(VersionResolver::close);
+	}
+
+	/**
+	 * Borrows the pooled {@link VersionCache} for the location. The caller must
+	 * close the repository after use, which returns it to the pool.
+	 *
+	 * @param location
+	 */
+	private VersionCache borrow(File location) throws IOException {
+		synchronized (repositories) {
+			VersionCache cache = get(location);
+			if (cache != null) {
+				cache.getRepository().incrementOpen();
+				return cache;
+			}
+		}
+
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		builder.findGitDir(location);
+		if (builder.getGitDir() == null) {
+			throw new IOException("No GIT repository found in '" + location + "'");
+		}
+		Repository opened = builder.build();
+
+		synchronized (repositories) {
+			VersionCache cache = get(location);
+			if (cache == null) {
+				cache = new VersionCache(opened);
+				repositories.put(location, cache);
+			} else {
+				opened.close();
+			}
+			cache.getRepository().incrementOpen();
+			return cache;
+		}
+	}
+
+	/**
+	 * Gets the pooled {@link VersionCache} for the location, must be called
+	 * while holding the lock of the pool.
+	 *
+	 * @param location
+	 */
+	private VersionCache get(File location) {
+		if (closed) {
+			throw new IllegalStateException("The resolver is already closed");
+		}
+		return repositories.get(location);
+	}
+
+	/**
+	 * Closes the {@link VersionCache} and the pool's reference to the
+	 * {@link Repository}. A repository in use is closed by its last user.
+	 *
+	 * @param cache
+	 */
+	private static void close(VersionCache cache) {
+		cache.close();
+		cache.getRepository().close();
+	}
+
+	/**
+	 * Waits for the computation and unwraps its failure.
+	 *
+	 * @param future
+	 */
+	private static GitVersion await(CompletableFuture<GitVersion> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while resolving the GIT version");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * The {@link Key} identifies a computation by the repository, the branch HEAD
+	 * points to and the HEAD commit.
+	 */
+	private static class Key {
+
+		private final File directory;
+		private final String branch;
+		private final ObjectId commit;
+
+		/**
+		 * Constructs an instance of {@link Key}.
+		 *
+		 * @param directory
+		 * @param branch
+		 * @param commit
+		 */
+		private Key(File directory, String branch, ObjectId commit) {
+			this.directory = directory;
+			this.branch = branch;
+			this.commit = commit.copy();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(directory, branch, commit);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return Objects.equals(directory, other.directory) && branch.equals(other.branch)
+					&& commit.equals(other.commit);
+		}
+	}
+}
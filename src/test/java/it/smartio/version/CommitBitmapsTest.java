@@ -0,0 +1,113 @@
+
+package it.smartio.version;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.RevWalkUtils;
+
+/**
+ * Checks that the bitmap mode and the walk mode compute the same counts and
+ * distances, on a packed repository with bitmaps, merges and loose commits.
+ */
+public class CommitBitmapsTest {
+
+  public static void main(String[] args) throws Exception {
+    File root = Tests.createDirectory();
+    try (Git git = Git.init().setDirectory(root).call()) {
+      List<RevCommit> commits = new ArrayList<>();
+      for (int i = 0; i < 300; i++) {
+        commits.add(commit(git, "Commit " + i, i));
+        if (i % 50 == 25) {
+          git.checkout().setCreateBranch(true).setName("feature" + i).call();
+          commits.add(commit(git, "Feature " + i, -1));
+          commits.add(commit(git, "Feature " + i + ".1", -1));
+          git.checkout().setName("master").call();
+          commits.add(commit(git, "Master " + i, -1));
+          git.merge().include(git.getRepository().resolve("feature" + i)).setFastForward(FastForwardMode.NO_FF)
+              .setMessage("Merge " + i).call();
+          commits.add(git.log().setMaxCount(1).call().iterator().next());
+        }
+      }
+      git.gc().call();
+      for (int i = 300; i < 330; i++) {
+        commits.add(commit(git, "Loose " + i, i));
+      }
+
+      Repository repository = git.getRepository();
+      CommitBitmaps bitmaps = CommitBitmaps.open(repository);
+      Tests.assertTrue(bitmaps != null, "No bitmap index in " + repository.getDirectory());
+
+      try (RevWalk walk = new RevWalk(repository)) {
+        for (int h = 0; h < commits.size(); h += 7) {
+          RevCommit head = walk.parseCommit(commits.get(h));
+          CommitBitmaps.Reach reach = bitmaps.reach(walk, head);
+          Tests.assertEquals(RevWalkUtils.count(walk, head, null), reach.getCount());
+
+          for (int t = 0; t < commits.size(); t += 11) {
+            RevCommit tag = walk.parseCommit(commits.get(t));
+            boolean merged = walk.isMergedInto(tag, head);
+            Tests.assertEquals(merged, reach.contains(tag));
+            if (merged) {
+              int distance = reach.getCount() - bitmaps.reach(walk, tag).getCount();
+              Tests.assertEquals(RevWalkUtils.count(walk, head, tag), distance);
+            }
+          }
+        }
+      }
+
+      // The nearest tag and the count at several HEAD positions
+      for (int h = 0; h < commits.size(); h += 23) {
+        git.checkout().setName(commits.get(h).getName()).call();
+        System.setProperty(GitVersion.BITMAPS, "false");
+        String walked = toString(root);
+        System.setProperty(GitVersion.BITMAPS, "true");
+        Tests.assertEquals(walked, toString(root));
+      }
+
+      // A truncated bitmap index falls back to the walk
+      git.checkout().setName("master").call();
+      System.setProperty(GitVersion.BITMAPS, "false");
+      String walked = toString(root);
+      System.setProperty(GitVersion.BITMAPS, "true");
+      File[] files = new File(repository.getDirectory(), "objects/pack").listFiles((d, n) -> n.endsWith(".bitmap"));
+      Tests.assertEquals(1, files.length);
+      try (RandomAccessFile raf = new RandomAccessFile(files[0], "rw")) {
+        raf.setLength(raf.length() / 2);
+      }
+      Tests.assertEquals(walked, toString(root));
+
+      System.out.println("Bitmap and walk mode computed the same counts and distances");
+    } finally {
+      Tests.delete(root);
+    }
+  }
+
+  /**
+   * Creates a commit and tags every tenth commit.
+   *
+   * @param git
+   * @param message
+   * @param index
+   */
+  private static RevCommit commit(Git git, String message, int index) throws Exception {
+    RevCommit commit = git.commit().setMessage(message).setAllowEmpty(true).call();
+    if ((index >= 0) && (index % 10 == 3)) {
+      git.tag().setName("1." + index + ".0").setAnnotated(index % 20 == 3).call();
+    }
+    return commit;
+  }
+
+  private static String toString(File location) throws Exception {
+    try (GitVersion git = GitVersion.open(location)) {
+      return git.getTagName() + " " + git.getCount();
+    }
+  }
+}
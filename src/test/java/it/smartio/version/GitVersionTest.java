@@ -0,0 +1,62 @@
+
+package it.smartio.version;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+
+/**
+ * Checks the {@link GitVersion} on a repository, where the HEAD is tagged and
+ * where the nearest tag is some commits behind the HEAD.
+ */
+public class GitVersionTest {
+
+  public static void main(String[] args) throws Exception {
+    File root = Tests.createDirectory();
+    try (Git git = Git.init().setDirectory(root).call()) {
+      git.commit().setMessage("Commit 1").setAllowEmpty(true).call();
+      git.tag().setName("1.1.0").call();
+      git.commit().setMessage("Commit 2").setAllowEmpty(true).call();
+      git.commit().setMessage("Commit 3").setAllowEmpty(true).call();
+
+      // Nearest tag behind HEAD
+      check(root, "refs/tags/1.1.0", "1.1.0", 3);
+
+      // Tagged HEAD, the release case
+      git.tag().setName("1.2.0").setAnnotated(false).call();
+      check(root, "refs/tags/1.2.0", "1.2.0", 3);
+
+      git.commit().setMessage("Commit 4").setAllowEmpty(true).call();
+      git.tag().setName("1.3.0").setAnnotated(true).setMessage("Release").call();
+      check(root, "refs/tags/1.3.0", "1.3.0", 4);
+
+      System.out.println("GitVersion resolved correctly");
+    } finally {
+      Tests.delete(root);
+    }
+  }
+
+  /**
+   * Checks the eager and the lazy {@link GitVersion}. The lazy instance resolves
+   * the version before the time, as the version task does.
+   *
+   * @param location
+   * @param tag
+   * @param version
+   * @param count
+   */
+  private static void check(File location, String tag, String version, int count) throws Exception {
+    GitVersion eager = GitVersion.getLatestVersion(location);
+    Tests.assertEquals(tag, eager.getTagName());
+    Tests.assertEquals(version, eager.getVersion().toString());
+    Tests.assertEquals(count, eager.getCount());
+
+    try (GitVersion lazy = GitVersion.open(location)) {
+      Tests.assertEquals(version, lazy.getVersion().toString());
+      Tests.assertEquals(eager.getISOTime(), lazy.getISOTime());
+      Tests.assertEquals(eager.getHash(), lazy.getHash());
+      Tests.assertEquals(count, lazy.getCount());
+      Tests.assertEquals(tag, lazy.getTagName());
+    }
+  }
+}
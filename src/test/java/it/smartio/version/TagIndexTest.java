@@ -0,0 +1,136 @@
+
+package it.smartio.version;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Checks the incremental refresh of the {@link TagIndex}: tags that are added,
+ * moved or deleted, annotated and lightweight tags, loose and packed refs and
+ * an index file that is truncated, corrupt or written with another pattern.
+ * After each change the index must return the same tags and versions as the
+ * refs of the repository.
+ */
+public class TagIndexTest {
+
+  private static final Pattern PATTERN = Pattern.compile(
+      "(?<major>\\d+)[./](?<minor>\\d+)(?:[./](?<patch>\\d+))?(?:-(?<name>[a-zA-Z0-9.]+))?(?:\\+(?<build>[a-zA-Z0-9.]+))?");
+  private static final Pattern SWAPPED = Pattern.compile(
+      "(?<minor>\\d+)[./](?<major>\\d+)(?:[./](?<patch>\\d+))?(?:-(?<name>[a-zA-Z0-9.]+))?(?:\\+(?<build>[a-zA-Z0-9.]+))?");
+
+  public static void main(String[] args) throws Exception {
+    File root = Tests.createDirectory();
+    try (Git git = Git.init().setDirectory(root).call()) {
+      Repository repository = git.getRepository();
+      File file = new File(repository.getDirectory(), "git-version-tags.idx");
+
+      RevCommit first = git.commit().setMessage("Commit 1").setAllowEmpty(true).call();
+      git.tag().setName("1.0.0").setAnnotated(false).call();
+      git.tag().setName("1.1.0").setAnnotated(true).setMessage("Release").call();
+      git.tag().setName("snapshot").call();
+      check(repository, PATTERN, "initial");
+      Tests.assertTrue(file.isFile(), "The index has not been written");
+      check(repository, PATTERN, "unchanged");
+
+      // Added tags
+      RevCommit second = git.commit().setMessage("Commit 2").setAllowEmpty(true).call();
+      git.tag().setName("1.2.0").setAnnotated(false).call();
+      git.tag().setName("1.3.0").setAnnotated(true).setMessage("Release").call();
+      check(repository, PATTERN, "added");
+
+      // Moved tags, lightweight and annotated
+      git.tag().setName("1.0.0").setObjectId(second).setAnnotated(false).setForceUpdate(true).call();
+      git.tag().setName("1.1.0").setObjectId(second).setAnnotated(true).setMessage("Moved").setForceUpdate(true)
+          .call();
+      check(repository, PATTERN, "moved");
+
+      // Deleted tags
+      git.tagDelete().setTags("1.2.0", "snapshot").call();
+      check(repository, PATTERN, "deleted");
+
+      // Packed refs, then a loose ref that overrides the packed one
+      git.gc().call();
+      check(repository, PATTERN, "packed");
+      git.tag().setName("1.3.0").setObjectId(first).setAnnotated(false).setForceUpdate(true).call();
+      git.tag().setName("2.0.0").setAnnotated(true).setMessage("Release").call();
+      check(repository, PATTERN, "loose");
+      git.tagDelete().setTags("1.0.0").call();
+      check(repository, PATTERN, "packed deleted");
+
+      // A truncated names section
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(raf.length() - 4);
+      }
+      check(repository, PATTERN, "truncated");
+
+      // A name offset beyond the end of the file
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.seek(16);
+        raf.writeInt(Integer.MAX_VALUE);
+      }
+      check(repository, PATTERN, "corrupt");
+
+      // A file that is shorter than its entries
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(20);
+      }
+      check(repository, PATTERN, "short");
+
+      // An index written with another pattern
+      check(repository, SWAPPED, "other pattern");
+      check(repository, PATTERN, "pattern restored");
+
+      System.out.println("TagIndex refreshed correctly");
+    } finally {
+      Tests.delete(root);
+    }
+  }
+
+  /**
+   * Checks the tags of the index against the refs of the repository.
+   *
+   * @param repository
+   * @param pattern
+   * @param step
+   */
+  private static void check(Repository repository, Pattern pattern, String step) throws Exception {
+    Map<String, String> expected = new TreeMap<>();
+    RefDatabase database = repository.getRefDatabase();
+    for (Ref ref : database.getRefsByPrefix(Constants.R_TAGS)) {
+      Ref peeled = database.peel(ref);
+      ObjectId id = (peeled.getPeeledObjectId() == null) ? ref.getObjectId() : peeled.getPeeledObjectId();
+      String version;
+      try {
+        version = Version.parse(ref.getName(), pattern).toString();
+      } catch (IllegalArgumentException e) {
+        version = null;
+      }
+      expected.put(ref.getName(), id.getName() + " " + version);
+    }
+
+    Map<String, String> actual = new TreeMap<>();
+    for (TagIndex.Tag tag : TagIndex.load(repository, pattern)) {
+      Version version = tag.getVersion();
+      actual.put(tag.getName(), tag.getObjectId().getName() + " " + ((version == null) ? null : version.toString()));
+    }
+
+    Tests.assertTrue(expected.equals(actual), step + ": expected " + expected + " but was " + actual);
+
+    // The index file must have been replaced with the current tags
+    File file = new File(repository.getDirectory(), "git-version-tags.idx");
+    Tests.assertEquals(expected.size(), ByteBuffer.wrap(Files.readAllBytes(file.toPath())).getInt(12));
+  }
+}
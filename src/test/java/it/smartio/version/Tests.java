@@ -0,0 +1,61 @@
+
+package it.smartio.version;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The {@link Tests} are the helpers shared by the tests of the package: a
+ * temporary directory for the test repositories and the assertions.
+ */
+final class Tests {
+
+  private Tests() {}
+
+  /**
+   * Creates a temporary directory, that must be deleted with
+   * {@link #delete(File)}.
+   */
+  static File createDirectory() throws IOException {
+    return Files.createTempDirectory("git-version").toFile();
+  }
+
+  /**
+   * Deletes the directory with all files.
+   *
+   * @param root
+   */
+  static void delete(File root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Fails if the values are not equal.
+   *
+   * @param expected
+   * @param actual
+   */
+  static void assertEquals(Object expected, Object actual) {
+    if (!expected.equals(actual)) {
+      throw new IllegalStateException("Expected " + expected + " but was " + actual);
+    }
+  }
+
+  /**
+   * Fails with the message if the condition is not met.
+   *
+   * @param condition
+   * @param message
+   */
+  static void assertTrue(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+
+package it.smartio.version;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Stress test of the {@link VersionResolver}: many threads resolve the versions
+ * of more repositories than the pool can hold, while the HEAD of the first
+ * repository is moving. Every result must match the version computed by
+ * {@link GitVersion#getLatestVersion(File)} for the same HEAD.
+ *
+ * The HEAD of every second repository is tagged, every fourth repository is
+ * packed with bitmaps, the first one with loose commits on top.
+ */
+public class VersionResolverTest {
+
+  private static final int REPOSITORIES = 8;
+  private static final int CAPACITY     = 3;
+  private static final int THREADS      = 32;
+  private static final int REQUESTS     = 200;
+
+  public static void main(String[] args) throws Exception {
+    File root = Tests.createDirectory();
+    try {
+      List<File> locations = new ArrayList<>();
+      for (int i = 0; i < REPOSITORIES; i++) {
+        locations.add(createRepository(new File(root, "repo" + i), i));
+      }
+
+      // The computation must use the given commit and branch, not the current HEAD
+      try (Git git = Git.open(locations.get(0))) {
+        Tests.assertTrue(CommitBitmaps.open(git.getRepository()) != null, "No bitmap index in repo0");
+        ObjectId tagged = git.getRepository().getRefDatabase().peel(git.getRepository().exactRef("refs/tags/0.10.0"))
+            .getPeeledObjectId();
+        GitVersion version = GitVersion.getLatestVersion(git.getRepository(), tagged, "release");
+        Tests.assertTrue(tagged.getName().startsWith(version.getHash()) && (version.getCount() == 11),
+            "Resolved " + toString(version) + " instead of " + tagged.getName());
+        Tests.assertEquals("release", version.getBranchName());
+      }
+
+      // Expected results by repository and HEAD
+      Map<String, String> expected = new ConcurrentHashMap<>();
+      for (int i = 0; i < REPOSITORIES; i++) {
+        GitVersion git = GitVersion.getLatestVersion(locations.get(i));
+        Tests.assertTrue((i % 2 == 0) || git.getTagName().endsWith("/" + i + ".19.0"),
+            "Tagged HEAD of repo" + i + " resolved to " + git.getTagName());
+        expected.put(i + " " + git.getHash(), toString(git));
+      }
+
+      Queue<String> results = new ConcurrentLinkedQueue<>();
+      Queue<String> errors = new ConcurrentLinkedQueue<>();
+      AtomicInteger resolved = new AtomicInteger();
+      CountDownLatch start = new CountDownLatch(1);
+      ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+      try (VersionResolver resolver = new VersionResolver(CAPACITY)) {
+        for (int t = 0; t < THREADS; t++) {
+          int thread = t;
+          executor.execute(() -> {
+            try {
+              start.await();
+              for (int r = 0; r < REQUESTS; r++) {
+                int index = (thread + r) % REPOSITORIES;
+                GitVersion git = resolver.resolve(locations.get(index));
+                results.add(index + " " + git.getHash() + "\t" + toString(git));
+                resolved.incrementAndGet();
+              }
+            } catch (Throwable e) {
+              errors.add(e.toString());
+            }
+          });
+        }
+
+        // Moves the HEAD of the first repository while resolving
+        executor.execute(() -> {
+          try (Git git = Git.open(locations.get(0))) {
+            start.await();
+            for (int i = 0; i < 10; i++) {
+              git.commit().setMessage("Moving " + i).setAllowEmpty(true).call();
+              GitVersion version = GitVersion.getLatestVersion(locations.get(0));
+              expected.put("0 " + version.getHash(), toString(version));
+              Thread.sleep(10);
+            }
+          } catch (Throwable e) {
+            errors.add(e.toString());
+          }
+        });
+
+        start.countDown();
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
+          errors.add("Timeout after " + resolved.get() + " requests");
+        }
+      }
+
+      for (String result : results) {
+        String key = result.substring(0, result.indexOf('\t'));
+        String actual = result.substring(key.length() + 1);
+        if (!actual.equals(expected.get(key))) {
+          errors.add("repo" + key + ": expected " + expected.get(key) + " but was " + actual);
+        }
+      }
+
+      if (!errors.isEmpty()) {
+        errors.stream().limit(20).forEach(System.err::println);
+        throw new IllegalStateException(errors.size() + " errors in " + resolved.get() + " requests");
+      }
+
+      // Tags added to and deleted from an unchanged HEAD must not return a kept result
+      try (VersionResolver resolver = new VersionResolver(CAPACITY); Git git = Git.open(locations.get(2))) {
+        Tests.assertEquals("refs/tags/2.15.0", resolver.resolve(locations.get(2)).getTagName());
+        git.tag().setName("2.18.0").setAnnotated(false).call();
+        Tests.assertEquals("refs/tags/2.18.0", resolver.resolve(locations.get(2)).getTagName());
+        git.tagDelete().setTags("2.18.0").call();
+        Tests.assertEquals("refs/tags/2.15.0", resolver.resolve(locations.get(2)).getTagName());
+      }
+      System.out.printf("%d requests on %d repositories resolved correctly\n", resolved.get(), REPOSITORIES);
+    } finally {
+      Tests.delete(root);
+    }
+  }
+
+  /**
+   * Creates a repository with a few commits and version tags.
+   *
+   * @param location
+   * @param index
+   */
+  private static File createRepository(File location, int index) throws Exception {
+    try (Git git = Git.init().setDirectory(location).call()) {
+      for (int i = 0; i < 20; i++) {
+        git.commit().setMessage("Commit " + index + "." + i).setAllowEmpty(true).call();
+        if ((i % 5 == 0) || ((i == 19) && (index % 2 == 1))) {
+          git.tag().setName(index + "." + i + ".0").setAnnotated(i % 10 == 0).call();
+        }
+      }
+      if (index % 4 == 0) {
+        git.gc().call();
+      }
+    }
+    return location;
+  }
+
+  private static String toString(GitVersion git) {
+    return (git == null) ? null
+        : String.format("%s %s %s %s %d", git.getTagName(), git.getVersion(), git.getHash(), git.getBranchName(),
+            git.getCount());
+  }
+}